@@ -78,8 +78,9 @@ public class CleanupEncryptResources extends AbstractAction {
 
         try {
 
-            EncryptionService encryptionService = new EncryptionService(encryptionFilesParam, encryptionMetadataParam, vaultServiceAddressParam, authServiceAddressParam);
-            encryptionService.cleanup(context, this);
+            try (EncryptionService encryptionService = new EncryptionService(encryptionFilesParam, encryptionMetadataParam, vaultServiceAddressParam, authServiceAddressParam)) {
+                encryptionService.cleanup(context, this);
+            }
 
             logger.info("FINISHED CLEANUP ENCRYPTION ACTION");
 
@@ -16,6 +16,7 @@
  */
 package nl.mpi.tla.flat.deposit.action;
 
+import nl.mpi.tla.flat.deposit.action.encryption.ConcurrencyController;
 import nl.mpi.tla.flat.deposit.action.encryption.EncryptionService;
 import nl.mpi.tla.flat.deposit.Context;
 import nl.mpi.tla.flat.deposit.DepositException;
@@ -64,13 +65,18 @@ public class EncryptResources extends AbstractAction {
         String encryptionMetadataParam  = this.getParameter("encryption_metadata", "./metadata/flat_encryption.json");
         String vaultServiceAddressParam = this.getParameter("vault_service_address", "http://vault:8200");
         String authServiceAddressParam  = this.getParameter("auth_service_address", "http://vodapi:3003/auth");
+        String concurrencyMinParam      = this.getParameter("concurrency_min", Integer.toString(EncryptionService.DEFAULT_CONCURRENCY_FLOOR));
+        String concurrencyMaxParam      = this.getParameter("concurrency_max", Integer.toString(EncryptionService.DEFAULT_CONCURRENCY_CEILING));
 
-        logger.info("FLAT ENCRYPTION PARAMS : ENCRYPTION file dir: " + encryptionFilesParam + ", metadata: " + encryptionMetadataParam + ", vault service address: " + vaultServiceAddressParam + ", auth service address: " + authServiceAddressParam);
+        logger.info("FLAT ENCRYPTION PARAMS : ENCRYPTION file dir: " + encryptionFilesParam + ", metadata: " + encryptionMetadataParam + ", vault service address: " + vaultServiceAddressParam + ", auth service address: " + authServiceAddressParam + ", concurrency: " + concurrencyMinParam + "-" + concurrencyMaxParam);
 
         try {
 
-            EncryptionService encryptionService = new EncryptionService(encryptionFilesParam, encryptionMetadataParam, vaultServiceAddressParam, authServiceAddressParam);
-            encryptionService.encrypt(context, this);
+            ConcurrencyController concurrency = new ConcurrencyController(Integer.parseInt(concurrencyMinParam.trim()), Integer.parseInt(concurrencyMaxParam.trim()));
+
+            try (EncryptionService encryptionService = new EncryptionService(encryptionFilesParam, encryptionMetadataParam, vaultServiceAddressParam, authServiceAddressParam, concurrency)) {
+                encryptionService.encrypt(context, this);
+            }
 
             logger.info("FINISHED ENCRYPTION ACTION");
 
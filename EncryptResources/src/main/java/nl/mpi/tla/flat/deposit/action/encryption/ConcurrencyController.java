@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * AIMD controller for the number of files encrypted at the same time.
+ *
+ * Files are handed over with {@link #schedule(Runnable, Executor, Consumer)} and started on their executor
+ * as soon as the limit allows; every started task must end with {@link #release(long, long)},
+ * or {@link #release()} when it did no work. No thread blocks while waiting for its turn.
+ * Every file is weighed by its baseline: the lowest latency seen for files of about the same size
+ * (size buckets of a quarter octave). Once a window of samples is complete, its latency is compared
+ * with the baseline of its files, and its throughput, in baseline work done per second, with the
+ * previous window; both are independent of the size mix, so a window with a few huge files is
+ * not mistaken for congestion after a window of tiny ones.
+ * When latency inflates beyond the tolerance, or throughput drops right after growing the limit,
+ * the limit is halved (disks thrashing on big files). Otherwise the limit grows by one (many small
+ * KMS bound files), but only when the window was limit bound: the limit was reached at some point.
+ * A caller that never has more files in flight gains nothing from a higher limit.
+ * The limit always stays between floor and ceiling.
+ *
+ * @package Doorkeeper
+ */
+public class ConcurrencyController {
+
+    /**
+     * Logger instance
+     */
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(ConcurrencyController.class.getName());
+
+    /**
+     * latency may grow up to this factor over the baseline before backing off
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * throughput may drop by this fraction compared to the previous window before backing off
+     */
+    private static final double THROUGHPUT_TOLERANCE = 0.1;
+
+    /**
+     * minimum duration of a measuring window
+     */
+    private static final long WINDOW_NANOS = 500_000_000L;
+
+    /**
+     * size buckets per doubling of the file size, files in one bucket differ at most 19% in size
+     */
+    private static final int BUCKETS_PER_OCTAVE = 4;
+
+    private final int floor;
+    private final int ceiling;
+    private int limit;
+    private int inFlight;
+    private final Queue<Pending> pending = new ArrayDeque<>();
+
+    private final LongSupplier clock;
+    private boolean windowStarted = false;
+    private long windowStart;
+    private int windowSamples;
+    private long windowBytes;
+    private long windowLatencyNanos;
+    private double windowBaselineNanos;
+    private boolean windowSaturated = false;
+
+    private double previousThroughput = -1;
+    private boolean increased = false;
+    private final double[] baselineLatencyNanos = new double[BUCKETS_PER_OCTAVE * 64];
+
+    /**
+     * Constructor, starts at the floor
+     *
+     * @param int floor
+     * @param int ceiling
+     */
+    public ConcurrencyController(int floor, int ceiling) {
+
+        this(floor, ceiling, System::nanoTime);
+    }
+
+    /**
+     * Constructor with a custom nanosecond clock
+     *
+     * @param int floor
+     * @param int ceiling
+     * @param LongSupplier clock
+     */
+    ConcurrencyController(int floor, int ceiling, LongSupplier clock) {
+
+        if (floor < 1 || ceiling < floor) {
+            throw new IllegalArgumentException("Invalid concurrency bounds: floor = " + floor + ", ceiling = " + ceiling);
+        }
+
+        this.floor   = floor;
+        this.ceiling = ceiling;
+        this.limit   = floor;
+        this.clock   = clock;
+
+        Arrays.fill(this.baselineLatencyNanos, Double.MAX_VALUE);
+    }
+
+    public int getFloor() {
+        return floor;
+    }
+
+    public int getCeiling() {
+        return ceiling;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Queue a task, it is started on the executor once fewer files than the limit are in flight.
+     * When the executor rejects the task, it is not run and the rejection is handed to the callback.
+     *
+     * @param Runnable task
+     * @param Executor executor
+     * @param Consumer<RejectedExecutionException> rejected
+     *
+     * @return void
+     */
+    public void schedule(Runnable task, Executor executor, Consumer<RejectedExecutionException> rejected) {
+
+        synchronized (this) {
+
+            // the first window starts with the first task, not with setting up the service
+            if (!this.windowStarted) {
+
+                this.windowStarted = true;
+                this.windowStart   = this.clock.getAsLong();
+            }
+
+            this.pending.add(new Pending(task, executor, rejected));
+        }
+
+        this.startPending();
+    }
+
+    /**
+     * Report a finished file, adjusting the limit when the current window is complete
+     *
+     * @param long latencyNanos time spent on the file
+     * @param long bytes size of the file
+     *
+     * @return void
+     */
+    public void release(long latencyNanos, long bytes) {
+
+        synchronized (this) {
+
+            int bucket = this.bucket(bytes);
+
+            this.baselineLatencyNanos[bucket] = Math.min(this.baselineLatencyNanos[bucket], latencyNanos);
+
+            this.inFlight--;
+            this.windowSamples++;
+            this.windowBytes         += bytes;
+            this.windowLatencyNanos  += latencyNanos;
+            this.windowBaselineNanos += this.baselineLatencyNanos[bucket];
+
+            long now = this.clock.getAsLong();
+
+            if (this.windowSamples >= 2 * this.limit && now - this.windowStart >= WINDOW_NANOS) {
+                this.adjust(now);
+            }
+        }
+
+        this.startPending();
+    }
+
+    /**
+     * Report a started task that did no work, without taking it into account for the limit
+     *
+     * @return void
+     */
+    public void release() {
+
+        synchronized (this) {
+            this.inFlight--;
+        }
+
+        this.startPending();
+    }
+
+    /**
+     * Start queued tasks while the limit allows, handing them to their executor outside the lock
+     *
+     * @return void
+     */
+    private void startPending() {
+
+        while (true) {
+
+            Pending next;
+
+            synchronized (this) {
+
+                if (this.inFlight >= this.limit || this.pending.isEmpty()) {
+                    return;
+                }
+
+                this.inFlight++;
+                next = this.pending.poll();
+
+                if (this.inFlight >= this.limit) {
+                    this.windowSaturated = true;
+                }
+            }
+
+            try {
+
+                next.executor.execute(next.task);
+
+            } catch (RejectedExecutionException e) {
+
+                synchronized (this) {
+                    this.inFlight--;
+                }
+
+                next.rejected.accept(e);
+            }
+        }
+    }
+
+    /**
+     * Additive increase, multiplicative decrease based on the window that just completed
+     *
+     * @param long now
+     *
+     * @return void
+     */
+    private void adjust(long now) {
+
+        // baseline seconds of work per second, unlike bytes/s this doesn't depend on the size mix
+        double throughput = this.windowBaselineNanos / Math.max(1.0, now - this.windowStart);
+        double inflation  = this.windowLatencyNanos / Math.max(1.0, this.windowBaselineNanos);
+        int previousLimit = this.limit;
+        String reason;
+
+        if (inflation > LATENCY_TOLERANCE) {
+
+            this.limit = Math.max(this.floor, this.limit / 2);
+            reason     = "latency inflated";
+
+            // let the baselines follow slowly, so a permanently slower KMS or disk does not pin us to the floor
+            for (int i = 0; i < this.baselineLatencyNanos.length; i++) {
+
+                if (this.baselineLatencyNanos[i] != Double.MAX_VALUE) {
+                    this.baselineLatencyNanos[i] *= 1.5;
+                }
+            }
+
+        } else if (this.increased && throughput < this.previousThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+
+            this.limit = Math.max(this.floor, this.limit / 2);
+            reason     = "throughput dropped";
+
+        } else if (this.windowSaturated) {
+
+            this.limit = Math.min(this.ceiling, this.limit + 1);
+            reason     = "throughput holding";
+
+        } else {
+
+            reason = "not limit bound";
+        }
+
+        logger.info(String.format(Locale.ROOT,
+            "[ConcurrencyController] concurrency %d -> %d (%s): %d files, %.2f MB/s, throughput %.2f (previous %.2f) baseline s/s, mean latency %.1f ms, %.2fx the baseline for their sizes",
+            previousLimit, this.limit, reason, this.windowSamples,
+            this.windowBytes / 1e6 / Math.max(1e-9, (now - this.windowStart) / 1e9),
+            throughput, Math.max(0, this.previousThroughput),
+            this.windowLatencyNanos / 1e6 / this.windowSamples, inflation));
+
+        this.increased           = this.limit > previousLimit;
+        this.previousThroughput  = throughput;
+        this.windowStart         = now;
+        this.windowSamples       = 0;
+        this.windowBytes         = 0;
+        this.windowLatencyNanos  = 0;
+        this.windowBaselineNanos = 0;
+        this.windowSaturated     = this.inFlight >= this.limit;
+    }
+
+    /**
+     * Size bucket of a file
+     *
+     * @param long bytes
+     *
+     * @return int
+     */
+    private int bucket(long bytes) {
+
+        double octaves = Math.log(Math.max(1, bytes)) / Math.log(2);
+        return Math.min(this.baselineLatencyNanos.length - 1, (int) (octaves * BUCKETS_PER_OCTAVE));
+    }
+
+    /**
+     * Task waiting for its turn
+     */
+    private static final class Pending {
+
+        private final Runnable task;
+        private final Executor executor;
+        private final Consumer<RejectedExecutionException> rejected;
+
+        private Pending(Runnable task, Executor executor, Consumer<RejectedExecutionException> rejected) {
+
+            this.task     = task;
+            this.executor = executor;
+            this.rejected = rejected;
+        }
+    }
+}
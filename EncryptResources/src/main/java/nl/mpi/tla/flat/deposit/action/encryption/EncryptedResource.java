@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption;
+
+import java.nio.file.Path;
+
+/**
+ * Files involved in the encryption of a single resource
+ *
+ * @package Doorkeeper
+ */
+public class EncryptedResource {
+
+    private final Path keyFile;
+    private final Path originalFile;
+    private final Path backupFile;
+    private final long encryptionNanos;
+
+    /**
+     * Constructor
+     *
+     * @param Path keyFile
+     * @param Path originalFile
+     * @param Path backupFile
+     * @param long encryptionNanos time spent encrypting, including the backup
+     */
+    public EncryptedResource(Path keyFile, Path originalFile, Path backupFile, long encryptionNanos) {
+
+        this.keyFile         = keyFile;
+        this.originalFile    = originalFile;
+        this.backupFile      = backupFile;
+        this.encryptionNanos = encryptionNanos;
+    }
+
+    public Path getKeyFile() {
+        return keyFile;
+    }
+
+    public Path getOriginalFile() {
+        return originalFile;
+    }
+
+    public Path getBackupFile() {
+        return backupFile;
+    }
+
+    public long getEncryptionNanos() {
+        return encryptionNanos;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executor for encryption work. The number of threads is bounded by the
+ * concurrency controller, so a cached pool of daemon threads is enough.
+ *
+ * On Java 21+ the multi-release JAR replaces this class with a version handing out
+ * virtual threads (see src/main/java21), which suits the waits on the KMS better.
+ *
+ * @package Doorkeeper
+ */
+public final class EncryptionExecutors {
+
+    private EncryptionExecutors() {
+    }
+
+    /**
+     * Create the default executor
+     *
+     * @return ExecutorService
+     */
+    public static ExecutorService newExecutor() {
+
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = task -> {
+
+            Thread thread = new Thread(task, "encryption-worker-" + count.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        };
+
+        return Executors.newCachedThreadPool(factory);
+    }
+}
@@ -27,7 +27,21 @@ import nl.mpi.tla.encryption.StreamingManager;
 
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.io.File;
 import java.io.IOException;
 
@@ -46,20 +60,51 @@ import java.security.GeneralSecurityException;
  * @author  Ibrahim Abdullah <ibrahim.abdullah@mpi.nl>
  * @package Doorkeeper
  */
-public class EncryptionService  {
+public class EncryptionService implements AutoCloseable {
+
+    public static final int DEFAULT_CONCURRENCY_FLOOR   = 1;
+    public static final int DEFAULT_CONCURRENCY_CEILING = 8;
 
     private String kekUri = "hcvault://flat_mpi";
-    private StreamingManager manager;
+
+    /**
+     * Idle encryptors. Nothing guarantees StreamingManager (and its Vault client) is thread-safe,
+     * so every file in flight checks out an encryptor of its own.
+     */
+    private final Queue<FileEncryptor> encryptors = new ConcurrentLinkedQueue<>();
     private FilesMarked filesMarkedForEncryption;
     private Path encryptionFiles;
     private String vaultServiceAddress;
     private String authServiceAddress;
+    private ConcurrencyController concurrency;
+    private Executor executor;
+    private ExecutorService ownedExecutor;
+
+    /**
+     * Number of scheduled tasks that haven't ended yet, guarded by the lock
+     */
+    private final Object lock = new Object();
+    private int outstanding = 0;
 
     /**
      * Logger instance
      */
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(EncryptionService.class.getName());
 
+    /**
+     * Receives every encrypted resource, to register its rollback
+     */
+    public interface Rollback {
+        void register(EncryptedResource resource) throws DepositException, IOException;
+    }
+
+    /**
+     * Encrypts a single file into an output file, writing its keyset
+     */
+    protected interface FileEncryptor {
+        void encrypt(File keyFile, File inputFile, File outputFile) throws DepositException;
+    }
+
     /**
      * Constructor
      *
@@ -73,13 +118,61 @@ public class EncryptionService  {
      */
     public EncryptionService(String encryptionFilesParam, String encryptionMetadataParam, String vaultServiceAddressParam, String authServiceAddressParam) throws DepositException {
 
-        logger.info("CREATING ENCRYPTION SERVICE - encryptionFiles: " + encryptionFilesParam + " encryptionMetadata: " + encryptionMetadataParam + " vaultServiceAddress: " + vaultServiceAddressParam + " authServiceAddress: " + authServiceAddressParam);
+        this(encryptionFilesParam, encryptionMetadataParam, vaultServiceAddressParam, authServiceAddressParam, new ConcurrencyController(DEFAULT_CONCURRENCY_FLOOR, DEFAULT_CONCURRENCY_CEILING));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param String encryptionFilesParam
+     * @param String encryptionMetaDataParam
+     * @param String vaultServiceAddressParam
+     * @param String authServiceAddressParam
+     * @param ConcurrencyController concurrency
+     *
+     * @return EncryptionService
+     * @throws DepositException
+     */
+    public EncryptionService(String encryptionFilesParam, String encryptionMetadataParam, String vaultServiceAddressParam, String authServiceAddressParam, ConcurrencyController concurrency) throws DepositException {
+
+        this(encryptionFilesParam, encryptionMetadataParam, vaultServiceAddressParam, authServiceAddressParam, concurrency, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param String encryptionFilesParam
+     * @param String encryptionMetaDataParam
+     * @param String vaultServiceAddressParam
+     * @param String authServiceAddressParam
+     * @param ConcurrencyController concurrency
+     * @param Executor executor to run encryption work on, null for a default executor owned (and shut down) by the service
+     *
+     * @return EncryptionService
+     * @throws DepositException
+     */
+    public EncryptionService(String encryptionFilesParam, String encryptionMetadataParam, String vaultServiceAddressParam, String authServiceAddressParam, ConcurrencyController concurrency, Executor executor) throws DepositException {
+
+        logger.info("CREATING ENCRYPTION SERVICE - encryptionFiles: " + encryptionFilesParam + " encryptionMetadata: " + encryptionMetadataParam + " vaultServiceAddress: " + vaultServiceAddressParam + " authServiceAddress: " + authServiceAddressParam + " concurrency: " + concurrency.getFloor() + "-" + concurrency.getCeiling());
 
         this.filesMarkedForEncryption = this.getFilesMarkedForEncryption(encryptionMetadataParam);
         this.encryptionFiles          = ResourceService.getEncryptionFilesDir(encryptionFilesParam);
         this.vaultServiceAddress      = vaultServiceAddressParam;
         this.authServiceAddress       = authServiceAddressParam;
-        this.manager                  = this.getManager();
+        this.concurrency              = concurrency;
+
+        // connect once up front, so an unreachable KMS fails before any file is touched
+        this.encryptors.offer(this.createEncryptor());
+
+        if (executor == null) {
+
+            this.ownedExecutor = EncryptionExecutors.newExecutor();
+            this.executor      = this.ownedExecutor;
+
+        } else {
+
+            this.executor = executor;
+        }
     }
 
     /**
@@ -93,65 +186,167 @@ public class EncryptionService  {
      */
     public void encrypt(Context context, ActionInterface action) throws DepositException, IOException {
 
-        logger.info("STARTING EncryptionService#encrypt");
+        // saving original resource to allow for rollback to revert to original if something goes wrong
+        this.encrypt(this.getPaths(context), resource -> context.registerRollbackEvent(action, "encryption.restore.original", "key", resource.getKeyFile().toString(), "original", resource.getOriginalFile().toString(), "backup", resource.getBackupFile().toString()));
+    }
 
-        Set<Resource> resources = ResourceService.fetchAll(context);
+    /**
+     * Encrypt the resources marked for encryption, handing every encrypted resource to the rollback.
+     * Files are encrypted concurrently, as many at a time as the concurrency controller allows.
+     * Files that disappeared are skipped, any other failure stops starting new files and is thrown
+     * once the files in flight are done; the files encrypted until then are still handed to the
+     * rollback, in the order of the resources.
+     *
+     * @param Collection<Path> resources
+     * @param Rollback rollback
+     *
+     * @return void
+     * @throws DepositException, IOException
+     */
+    public void encrypt(Collection<Path> resources, Rollback rollback) throws DepositException, IOException {
+
+        logger.info("STARTING EncryptionService#encrypt");
 
-        for (Resource res : resources) {
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<CompletableFuture<EncryptedResource>> futures = new ArrayList<>();
+        List<EncryptedResource> encrypted = new ArrayList<>();
+        Throwable failure = null;
 
-            Path inputFile = res.getPath();
+        for (Path inputFile : resources) {
 
             logger.info("SHOULD FILE: " + inputFile + " BE ENCRYPTED?");
 
-            if (!this.filesMarkedForEncryption.isMarked(inputFile.toFile())) {
+            if (!this.isMarked(inputFile)) {
 
                 logger.info("FILE: " + inputFile + " SHOULD NOT BE ENCRYPTED");
                 continue;
             }
 
-            logger.info("ENCRYPTING FILE: " + inputFile);
+            futures.add(this.encryptAsync(inputFile, failed));
+        }
+
+        // join instead of get, files in flight must end up in the encrypted list for their rollback
+        for (CompletableFuture<EncryptedResource> future : futures) {
 
             try {
 
+                encrypted.add(future.join());
+
+            } catch (CancellationException e) {
 
-                // if encryption folder doesn't exists, create it
-                // folder used to save the backup file and keyset
-                if (!Files.exists(this.encryptionFiles)) {
+                logger.info("FILE WAS NOT ENCRYPTED BECAUSE AN EARLIER FILE FAILED");
 
-                    logger.info("CREATING ENCRYPTION FOLDER");
-                    Files.createDirectory(this.encryptionFiles);
+            } catch (CompletionException e) {
+
+                if (e.getCause() instanceof NoSuchFileException) {
+                    logger.info("FILE WAS NOT ENCRYPTED BECAUSE NoSuchFileException WAS THROWN", e.getCause());
+                } else if (failure == null) {
+                    failure = e.getCause();
                 }
+            }
+        }
 
-                Path originalFile  = inputFile;
-                Path keyFile       = Paths.get(this.encryptionFiles.toString(), originalFile.getFileName().toString() + ".keyset.json");
-                Path encryptedFile = Paths.get(this.encryptionFiles.toString(), originalFile.getFileName().toString() + ".enc");
-                Path backupFile    = Paths.get(this.encryptionFiles.toString(), originalFile.getFileName().toString() + ".orig");
+        for (EncryptedResource resource : encrypted) {
 
-                logger.info("FILES NECESSARY FOR ENCRYPTION: originalFile = " + originalFile + ", keyFile = " + keyFile + ", encryptedFile =  " + encryptedFile + ", backupFile = " + backupFile);
+            rollback.register(resource);
 
-                Files.copy(originalFile, backupFile, StandardCopyOption.COPY_ATTRIBUTES);
+            logger.info("ROLLBACK REGISTERED FOR ENCRYPTED FILE = " + resource.getOriginalFile());
+        }
 
-                this.encryptFile(keyFile.toFile(), originalFile.toFile(), encryptedFile.toFile());
+        if (failure instanceof DepositException) {
+            throw (DepositException) failure;
+        }
 
-                // replacing original resource with encrypted one
-                Files.deleteIfExists(originalFile);
-                Files.move(encryptedFile, originalFile);
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
 
-                // saving original resource to allow for rollback to revert to original if something goes wrong
-                context.registerRollbackEvent(action, "encryption.restore.original", "key", keyFile.toString(), "original", originalFile.toString(), "backup", backupFile.toString());
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
 
-                logger.info("FILE ENCRYPTED AND ROLLBACK REGISTERED FOR ENCRYPTED FILE = " + encryptedFile);
-                logger.info("FILE WAS SUCCESSFULLY ENCRYPTED");
+        if (failure != null) {
+            throw new DepositException(failure);
+        }
 
-                // cleaning up by removing encrypted output file
-                Files.deleteIfExists(encryptedFile);
+        logger.info("ENDING EncryptionService#encrypt");
+    }
+
+    /**
+     * Start encrypting a single file, without blocking. The file is encrypted on the executor once the
+     * concurrency controller allows it. Registering rollback events is left to the caller.
+     * When the executor rejects the work (e.g. after {@link #close()}), the future fails with a RejectedExecutionException.
+     * Cancelling the future before the file is done leaves the file as it was.
+     *
+     * @param Path file
+     *
+     * @return CompletableFuture<EncryptedResource> failing with a DepositException, IOException or Error
+     */
+    public CompletableFuture<EncryptedResource> encryptAsync(Path file) {
+
+        return this.encryptAsync(file, new AtomicBoolean(false));
+    }
+
+    /**
+     * Start encrypting a single file, skipping it when another file of the same batch failed before it started
+     *
+     * @param Path file
+     * @param AtomicBoolean failed shared by the batch, set when a file fails for another reason than disappearing
+     *
+     * @return CompletableFuture<EncryptedResource>
+     */
+    private CompletableFuture<EncryptedResource> encryptAsync(Path file, AtomicBoolean failed) {
+
+        CompletableFuture<EncryptedResource> future = new CompletableFuture<>();
+
+        this.schedule(() -> {
+
+            if (failed.get() || future.isDone()) {
+
+                this.concurrency.release();
+                future.completeExceptionally(new CancellationException("Not encrypting " + file));
+                return;
+            }
+
+            long size;
+            EncryptedResource resource;
+
+            try {
+
+                size     = Files.size(file);
+                resource = this.encryptResource(file);
 
             } catch (NoSuchFileException e) {
-                logger.info("FILE WAS NOT ENCRYPTED BECAUSE NoSuchFileException WAS THROWN", e);
+
+                // nothing was encrypted, so there is no latency to learn from
+                this.concurrency.release();
+                future.completeExceptionally(e);
+                return;
+
+            } catch (Throwable e) {
+
+                // also errors (linkage, out of memory), an uncompleted future would hang the batch
+                failed.set(true);
+                this.concurrency.release();
+                future.completeExceptionally(e);
+                return;
             }
-        }
 
-        logger.info("ENDING EncryptionService#encrypt");
+            this.concurrency.release(resource.getEncryptionNanos(), size);
+
+            if (!future.complete(resource)) {
+
+                // the caller cancelled while encrypting and will never register a rollback, so undo it here
+                try {
+                    this.restoreResource(resource);
+                } catch (IOException e) {
+                    logger.error("Could not restore original file " + resource.getOriginalFile() + " from backup " + resource.getBackupFile(), e);
+                }
+            }
+
+        }, future::completeExceptionally);
+
+        return future;
     }
 
     /**
@@ -166,70 +361,365 @@ public class EncryptionService  {
      */
     public void cleanup(Context context, ActionInterface action) throws DepositException, IOException {
 
-        Set<Resource> resources = ResourceService.fetchAll(context);
+        this.cleanup(this.getPaths(context));
+    }
 
-        for (Resource res : resources) {
+    /**
+     * Restore the backups of the resources marked for encryption, once they have been archived
+     *
+     * @param Collection<Path> resources
+     *
+     * @return void
+     * @throws DepositException, IOException
+     */
+    public void cleanup(Collection<Path> resources) throws DepositException, IOException {
 
-            Path inputFile = res.getPath();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        Throwable failure = null;
 
-            if (!this.filesMarkedForEncryption.isMarked(inputFile.toFile())) {
+        for (Path inputFile : resources) {
+
+            if (!this.isMarked(inputFile)) {
 
                 // file isn't marked for encryption
                 // no cleanup necessary
                 continue;
             }
 
+            futures.add(this.cleanupAsync(inputFile));
+        }
+
+        for (CompletableFuture<Void> future : futures) {
+
             try {
 
-                Path originalFile = inputFile;
-                Path keyFile      = Paths.get(this.encryptionFiles.toString(), originalFile.getFileName().toString() + ".keyset.json");
-                Path backupFile   = Paths.get(this.encryptionFiles.toString(), originalFile.getFileName().toString() + ".orig");
+                future.join();
 
-                // moving original file back
-                Files.move(backupFile, originalFile);
+            } catch (CompletionException e) {
 
-                // cleaning up keyfile
-                Files.deleteIfExists(keyFile);
+                if (e.getCause() instanceof NoSuchFileException) {
+                    logger.info("FILE ENCRYPTION CLEANUP NOT DONE, BECAUSE NoSuchFileException was thrown", e.getCause());
+                } else if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
 
-                // delete encryption folder
-                try {
-                    Files.deleteIfExists(this.encryptionFiles);
-                } catch (DirectoryNotEmptyException e) {
-                    logger.error("Could not delete encryption folder: " + this.encryptionFiles.toString());
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+
+        if (failure != null) {
+            throw new DepositException(failure);
+        }
+    }
+
+    /**
+     * Start cleaning up a single encrypted file, without blocking. Like encryption, the file is handled
+     * on the executor once the concurrency controller allows it, so restoring backups does not thrash the disk.
+     * A rename says nothing about encryption latency, so cleanup does not feed the controller any samples.
+     *
+     * @param Path file
+     *
+     * @return CompletableFuture<Void> failing with an IOException
+     */
+    public CompletableFuture<Void> cleanupAsync(Path file) {
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        this.schedule(() -> {
+
+            try {
+
+                if (!future.isDone()) {
+
+                    this.cleanupResource(file);
+                    future.complete(null);
                 }
 
-            } catch (NoSuchFileException e) {
-                logger.info("FILE ENCRYPTION CLEANUP NOT DONE, BECAUSE NoSuchFileException was thrown", e);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                this.concurrency.release();
+            }
+
+        }, future::completeExceptionally);
+
+        return future;
+    }
+
+    /**
+     * Wait until every file handed to this service is done, including the ones still queued
+     * for the concurrency controller, then shut down the default executor if the service created it.
+     * Files handed over after closing are rejected.
+     *
+     * @return void
+     */
+    @Override
+    public void close() {
+
+        synchronized (this.lock) {
+
+            while (this.outstanding > 0) {
+
+                try {
+                    this.lock.wait();
+                } catch (InterruptedException e) {
+
+                    Thread.currentThread().interrupt();
+                    break;
+                }
             }
         }
+
+        if (this.ownedExecutor != null) {
+            this.ownedExecutor.shutdown();
+        }
     }
 
     /**
-     * Encrypt a file
+     * Hand a task to the concurrency controller, keeping track of it until it ends for {@link #close()}
      *
-     * @param File keyFile
-     * @param File inputFile
-     * @param File outputFile
+     * @param Runnable task
+     * @param Consumer<RejectedExecutionException> rejected
      *
      * @return void
-     * @throws DepositException
      */
-    private void encryptFile(File keyFile, File inputFile, File outputFile) throws DepositException {
+    private void schedule(Runnable task, Consumer<RejectedExecutionException> rejected) {
+
+        synchronized (this.lock) {
+            this.outstanding++;
+        }
+
+        this.concurrency.schedule(() -> {
+
+            try {
+                task.run();
+            } finally {
+                this.ended();
+            }
+
+        }, this.executor, e -> {
+
+            this.ended();
+            rejected.accept(e);
+        });
+    }
+
+    /**
+     * A scheduled task ended, or was rejected
+     *
+     * @return void
+     */
+    private void ended() {
+
+        synchronized (this.lock) {
+
+            this.outstanding--;
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Check whether a file was marked for encryption in the encryption metadata
+     *
+     * @param Path file
+     *
+     * @return boolean
+     */
+    public boolean isMarked(Path file) {
+
+        return this.filesMarkedForEncryption.isMarked(file.toFile());
+    }
+
+    /**
+     * Encrypt a single file in place, keeping a backup of the original and its keyset
+     * in the encryption folder. Registering rollback events is left to the caller.
+     *
+     * @param Path inputFile
+     *
+     * @return EncryptedResource
+     * @throws DepositException, IOException
+     */
+    public EncryptedResource encryptResource(Path inputFile) throws DepositException, IOException {
+
+        logger.info("ENCRYPTING FILE: " + inputFile);
+
+        long start = System.nanoTime();
+
+        // if encryption folder doesn't exists, create it
+        // folder used to save the backup file and keyset
+        if (!Files.exists(this.encryptionFiles)) {
+
+            logger.info("CREATING ENCRYPTION FOLDER");
+            Files.createDirectories(this.encryptionFiles);
+        }
+
+        Path originalFile  = inputFile;
+        Path keyFile       = this.getKeyFile(originalFile);
+        Path encryptedFile = Paths.get(this.encryptionFiles.toString(), originalFile.getFileName().toString() + ".enc");
+        Path backupFile    = this.getBackupFile(originalFile);
+
+        logger.info("FILES NECESSARY FOR ENCRYPTION: originalFile = " + originalFile + ", keyFile = " + keyFile + ", encryptedFile =  " + encryptedFile + ", backupFile = " + backupFile);
+
+        // check out an encryptor before touching the file, connecting a new one may fail
+        FileEncryptor encryptor = this.encryptors.poll();
+
+        if (encryptor == null) {
+            encryptor = this.createEncryptor();
+        }
 
         try {
 
-            logger.info("Encrypting file " + inputFile.getName());
-            this.manager.encrypt(keyFile, inputFile, outputFile);
+            Files.copy(originalFile, backupFile, StandardCopyOption.COPY_ATTRIBUTES);
 
-        } catch (GeneralSecurityException | IOException e) {
+            try {
+
+                encryptor.encrypt(keyFile.toFile(), originalFile.toFile(), encryptedFile.toFile());
 
-            logger.info("Could not encrypt file " + inputFile.getName());
-            logger.info("ERR: " + e.toString());
+            } catch (DepositException | RuntimeException | Error e) {
 
-            throw new DepositException("Could not encrypt file " + inputFile.getName(), e);
+                // nothing will roll this file back, so don't leave its backup behind
+                Files.deleteIfExists(encryptedFile);
+                Files.deleteIfExists(keyFile);
+                Files.deleteIfExists(backupFile);
+
+                throw e;
+            }
+
+        } finally {
+            this.encryptors.offer(encryptor);
+        }
+
+        // replacing original resource with encrypted one
+        Files.deleteIfExists(originalFile);
+        Files.move(encryptedFile, originalFile);
+
+        logger.info("FILE WAS SUCCESSFULLY ENCRYPTED = " + originalFile);
+
+        // cleaning up by removing encrypted output file
+        Files.deleteIfExists(encryptedFile);
+
+        return new EncryptedResource(keyFile, originalFile, backupFile, System.nanoTime() - start);
+    }
+
+    /**
+     * Restore the backup of a single archived file and remove its keyset
+     *
+     * @param Path inputFile
+     *
+     * @return void
+     * @throws IOException
+     */
+    public void cleanupResource(Path inputFile) throws IOException {
+
+        Path originalFile = inputFile;
+        Path keyFile      = this.getKeyFile(originalFile);
+        Path backupFile   = this.getBackupFile(originalFile);
+
+        // moving original file back
+        Files.move(backupFile, originalFile);
+
+        // cleaning up keyfile
+        Files.deleteIfExists(keyFile);
+
+        // delete encryption folder
+        try {
+            Files.deleteIfExists(this.encryptionFiles);
+        } catch (DirectoryNotEmptyException e) {
+            logger.error("Could not delete encryption folder: " + this.encryptionFiles.toString());
         }
     }
 
+    /**
+     * Undo the encryption of a single file, like the rollback of the EncryptResources action:
+     * restore the backup over the encrypted file and remove the keyset
+     *
+     * @param EncryptedResource resource
+     *
+     * @return void
+     * @throws IOException
+     */
+    public void restoreResource(EncryptedResource resource) throws IOException {
+
+        logger.info("RESTORING ORIGINAL FILE = " + resource.getOriginalFile());
+
+        Files.deleteIfExists(resource.getKeyFile());
+        Files.move(resource.getBackupFile(), resource.getOriginalFile(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Paths of the resources inside context
+     *
+     * @param Context context
+     *
+     * @return Set<Path>
+     * @throws DepositException
+     */
+    private Set<Path> getPaths(Context context) throws DepositException {
+
+        return ResourceService
+            .fetchAll(context)
+            .stream()
+            .map(Resource::getPath)
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * Keyset file belonging to an original file
+     *
+     * @param Path originalFile
+     *
+     * @return Path
+     */
+    private Path getKeyFile(Path originalFile) {
+
+        return Paths.get(this.encryptionFiles.toString(), originalFile.getFileName().toString() + ".keyset.json");
+    }
+
+    /**
+     * Backup file belonging to an original file
+     *
+     * @param Path originalFile
+     *
+     * @return Path
+     */
+    private Path getBackupFile(Path originalFile) {
+
+        return Paths.get(this.encryptionFiles.toString(), originalFile.getFileName().toString() + ".orig");
+    }
+
+    /**
+     * FileEncryptor Factory, connecting a StreamingManager
+     *
+     * @return FileEncryptor
+     * @throws DepositException
+     */
+    protected FileEncryptor createEncryptor() throws DepositException {
+
+        StreamingManager manager = this.getManager();
+
+        return (keyFile, inputFile, outputFile) -> {
+
+            try {
+
+                logger.info("Encrypting file " + inputFile.getName());
+                manager.encrypt(keyFile, inputFile, outputFile);
+
+            } catch (GeneralSecurityException | IOException e) {
+
+                logger.info("Could not encrypt file " + inputFile.getName());
+                logger.info("ERR: " + e.toString());
+
+                throw new DepositException("Could not encrypt file " + inputFile.getName(), e);
+            }
+        };
+    }
+
     /**
      * StreamingManager Factory
      *
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Default executor for encryption work on Java 21+, one virtual thread per file.
+ * Threads waiting on the KMS or disk are cheap, the concurrency controller bounds the work in flight.
+ *
+ * @package Doorkeeper
+ */
+public final class EncryptionExecutors {
+
+    private EncryptionExecutors() {
+    }
+
+    /**
+     * Create the default executor
+     *
+     * @return ExecutorService
+     */
+    public static ExecutorService newExecutor() {
+
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("encryption-worker-", 0).factory());
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the AIMD concurrency controller, driven by a manual clock
+ *
+ * @package Doorkeeper
+ */
+public class ConcurrencyControllerTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long KB = 1024L;
+    private static final long MB = 1024L * KB;
+
+    private final long[] now = {0};
+    private final List<Runnable> started = new ArrayList<>();
+    private final Executor collecting = started::add;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFloorBelowOne() {
+        new ConcurrencyController(0, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCeilingBelowFloor() {
+        new ConcurrencyController(3, 2);
+    }
+
+    @Test
+    public void startsAtFloorAndQueuesTheRest() {
+
+        ConcurrencyController controller = this.controller(2, 4);
+
+        for (int i = 0; i < 3; i++) {
+            controller.schedule(() -> { }, this.collecting, e -> fail("rejected"));
+        }
+
+        assertEquals(2, controller.getLimit());
+        assertEquals(2, this.started.size());
+
+        // a task that did no work frees its slot without a sample
+        controller.release();
+
+        assertEquals(3, this.started.size());
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void sampleReleaseStartsNextTask() {
+
+        ConcurrencyController controller = this.controller(1, 1);
+
+        controller.schedule(() -> { }, this.collecting, e -> fail("rejected"));
+        controller.schedule(() -> { }, this.collecting, e -> fail("rejected"));
+
+        assertEquals(1, this.started.size());
+
+        controller.release(10 * MS, KB);
+
+        assertEquals(2, this.started.size());
+    }
+
+    @Test
+    public void rejectedTaskFreesItsSlot() {
+
+        ConcurrencyController controller = this.controller(1, 1);
+        List<RejectedExecutionException> rejections = new ArrayList<>();
+
+        controller.schedule(() -> fail("ran a rejected task"), task -> { throw new RejectedExecutionException("closed"); }, rejections::add);
+        controller.schedule(() -> { }, this.collecting, e -> fail("rejected"));
+
+        assertEquals(1, rejections.size());
+        assertNotNull(rejections.get(0));
+        assertEquals(1, this.started.size());
+    }
+
+    @Test
+    public void growsByOneWhileLatencyHoldsUpToCeiling() {
+
+        ConcurrencyController controller = this.controller(1, 3);
+
+        this.window(controller, 10 * MS, KB);
+        assertEquals(2, controller.getLimit());
+
+        this.window(controller, 10 * MS, KB);
+        assertEquals(3, controller.getLimit());
+
+        this.window(controller, 10 * MS, KB);
+        assertEquals(3, controller.getLimit());
+    }
+
+    @Test
+    public void halvesOnInflatedLatency() {
+
+        ConcurrencyController controller = this.controller(1, 8);
+
+        this.window(controller, 10 * MS, MB);
+        this.window(controller, 10 * MS, MB);
+        this.window(controller, 10 * MS, MB);
+        assertEquals(4, controller.getLimit());
+
+        this.window(controller, 30 * MS, MB);
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void neverHalvesBelowFloor() {
+
+        ConcurrencyController controller = this.controller(2, 8);
+
+        this.window(controller, 10 * MS, MB);
+        assertEquals(3, controller.getLimit());
+
+        this.window(controller, 100 * MS, MB);
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void halvesWhenThroughputDropsAfterGrowing() {
+
+        ConcurrencyController controller = this.controller(1, 8);
+
+        this.window(controller, 10 * MS, MB);
+        assertEquals(2, controller.getLimit());
+
+        // same latency per file, but the window takes far longer: the extra worker made things worse
+        this.window(controller, 10 * MS, MB, 10_000 * MS);
+        assertEquals(1, controller.getLimit());
+    }
+
+    @Test
+    public void largeFilesAfterSmallOnesAreNotCongestion() {
+
+        ConcurrencyController controller = this.controller(1, 8);
+
+        this.window(controller, 10 * MS, KB);
+        assertEquals(2, controller.getLimit());
+
+        // a single huge file takes long because of its size, not because of contention
+        this.schedule(controller, 4);
+        controller.release(10 * MS, KB);
+        controller.release(10 * MS, KB);
+        controller.release(10 * MS, KB);
+        this.now[0] += 600 * MS;
+        controller.release(1000 * MS, 100 * MB);
+
+        assertEquals(3, controller.getLimit());
+    }
+
+    @Test
+    public void alternatingSmallAndLargeWindowsDoNotFlap() {
+
+        ConcurrencyController controller = this.controller(1, 8);
+        int previous = controller.getLimit();
+
+        // KMS bound tiny files and disk bound huge files, each as fast as they can be;
+        // in bytes/s every window of small files would look like a collapse after a window of large ones
+        for (int i = 0; i < 10; i++) {
+
+            if (i % 2 == 0) {
+                this.steadyWindow(controller, 10 * MS, KB);
+            } else {
+                this.steadyWindow(controller, 400 * MS, 16 * MB);
+            }
+
+            assertTrue("limit dropped from " + previous + " to " + controller.getLimit() + " in window " + i, controller.getLimit() >= previous);
+            previous = controller.getLimit();
+        }
+
+        assertEquals(8, controller.getLimit());
+    }
+
+    @Test
+    public void doesNotGrowWhenTheLimitIsNeverReached() {
+
+        ConcurrencyController controller = this.controller(1, 8);
+
+        this.window(controller, 10 * MS, KB);
+        assertEquals(2, controller.getLimit());
+
+        // a caller handing over one file at a time never has two in flight
+        for (int i = 0; i < 10; i++) {
+
+            this.now[0] += 100 * MS;
+            this.complete(controller, 10 * MS, KB);
+        }
+
+        assertEquals(2, controller.getLimit());
+
+        // once files queue up again, it grows
+        this.window(controller, 10 * MS, KB);
+        assertEquals(3, controller.getLimit());
+    }
+
+    @Test
+    public void firstWindowStartsAtFirstTask() {
+
+        ConcurrencyController controller = this.controller(1, 8);
+
+        // time spent setting up the service before the first task must not count towards the window
+        this.now[0] += 60_000 * MS;
+
+        this.complete(controller, 10 * MS, MB);
+        this.complete(controller, 10 * MS, MB);
+        assertEquals(1, controller.getLimit());
+
+        this.now[0] += 600 * MS;
+        this.complete(controller, 10 * MS, MB);
+        assertEquals(2, controller.getLimit());
+    }
+
+    private ConcurrencyController controller(int floor, int ceiling) {
+        return new ConcurrencyController(floor, ceiling, () -> this.now[0]);
+    }
+
+    /**
+     * Complete exactly one window (2 * limit files, all queued up front) of identical files taking 600 ms
+     */
+    private void window(ConcurrencyController controller, long latencyNanos, long bytes) {
+        this.window(controller, latencyNanos, bytes, 600 * MS);
+    }
+
+    private void window(ConcurrencyController controller, long latencyNanos, long bytes, long durationNanos) {
+
+        int samples = 2 * controller.getLimit();
+
+        this.schedule(controller, samples);
+
+        for (int i = 0; i < samples; i++) {
+
+            if (i == samples - 1) {
+                this.now[0] += durationNanos;
+            }
+
+            controller.release(latencyNanos, bytes);
+        }
+    }
+
+    /**
+     * Complete exactly one window of identical files, all queued up front, with limit files
+     * in flight at any time, so the window lasts as long as it takes to process them
+     */
+    private void steadyWindow(ConcurrencyController controller, long latencyNanos, long bytes) {
+
+        int limit    = controller.getLimit();
+        long spacing = latencyNanos / limit;
+        int samples  = (int) Math.max(2 * limit, (500 * MS + spacing - 1) / spacing);
+
+        this.schedule(controller, samples);
+
+        for (int i = 0; i < samples; i++) {
+
+            this.now[0] += spacing;
+            controller.release(latencyNanos, bytes);
+        }
+    }
+
+    private void schedule(ConcurrencyController controller, int tasks) {
+
+        for (int i = 0; i < tasks; i++) {
+            controller.schedule(() -> { }, this.collecting, e -> fail("rejected"));
+        }
+    }
+
+    private void complete(ConcurrencyController controller, long latencyNanos, long bytes) {
+
+        controller.schedule(() -> { }, this.collecting, e -> fail("rejected"));
+        controller.release(latencyNanos, bytes);
+    }
+}
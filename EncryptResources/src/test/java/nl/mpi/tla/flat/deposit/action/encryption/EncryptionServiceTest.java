@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.mpi.tla.flat.deposit.DepositException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for EncryptionService, with the actual encryption replaced by a fake that needs no KMS
+ *
+ * @package Doorkeeper
+ */
+public class EncryptionServiceTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void encryptEncryptsMarkedFilesInPlaceAndRegistersRollbacks() throws Exception {
+
+        List<Path> files = this.files("a", "b", "c");
+        this.mark("a", "c");
+
+        List<EncryptedResource> registered = new ArrayList<>();
+
+        this.service(2, 2, file -> { }).encrypt(files, registered::add);
+
+        assertEquals(2, registered.size());
+        assertEquals(files.get(0), registered.get(0).getOriginalFile());
+        assertEquals(files.get(2), registered.get(1).getOriginalFile());
+
+        for (EncryptedResource resource : registered) {
+
+            String name = resource.getOriginalFile().getFileName().toString();
+
+            assertEquals("encrypted:" + name, this.read(resource.getOriginalFile()));
+            assertEquals(name, this.read(resource.getBackupFile()));
+            assertTrue(Files.exists(resource.getKeyFile()));
+        }
+
+        // unmarked files are left alone
+        assertEquals("b", this.read(files.get(1)));
+        assertFalse(Files.exists(this.encryptionDir().resolve("b.orig")));
+    }
+
+    @Test
+    public void encryptSkipsFilesThatDisappeared() throws Exception {
+
+        List<Path> files = new ArrayList<>(this.files("a", "b"));
+        files.add(1, this.folder.getRoot().toPath().resolve("resources").resolve("gone"));
+        this.mark("a", "gone", "b");
+
+        List<EncryptedResource> registered = new ArrayList<>();
+
+        this.service(1, 4, file -> { }).encrypt(files, registered::add);
+
+        assertEquals(2, registered.size());
+        assertEquals(files.get(0), registered.get(0).getOriginalFile());
+        assertEquals(files.get(2), registered.get(1).getOriginalFile());
+    }
+
+    @Test
+    public void encryptStopsStartingFilesAfterAFailure() throws Exception {
+
+        List<Path> files = this.files("a", "b", "c", "d");
+        this.mark("a", "b", "c", "d");
+
+        List<EncryptedResource> registered = new ArrayList<>();
+
+        EncryptionService service = this.service(1, 1, file -> {
+            if (file.getName().equals("b")) {
+                throw new DepositException("Could not encrypt file b");
+            }
+        });
+
+        try {
+            service.encrypt(files, registered::add);
+            fail("expected a DepositException");
+        } catch (DepositException e) {
+            assertEquals("Could not encrypt file b", e.getMessage());
+        }
+
+        assertEquals(1, registered.size());
+        assertEquals(files.get(0), registered.get(0).getOriginalFile());
+
+        // c and d were never started
+        assertEquals("c", this.read(files.get(2)));
+        assertEquals("d", this.read(files.get(3)));
+        assertFalse(Files.exists(this.encryptionDir().resolve("c.orig")));
+        assertFalse(Files.exists(this.encryptionDir().resolve("d.orig")));
+    }
+
+    @Test
+    public void encryptRegistersFilesInFlightDuringAFailure() throws Exception {
+
+        List<Path> files = this.files("a", "b");
+        this.mark("a", "b");
+
+        List<EncryptedResource> registered = new ArrayList<>();
+        CountDownLatch aStarted = new CountDownLatch(1);
+        CountDownLatch bFailed  = new CountDownLatch(1);
+
+        EncryptionService service = this.service(2, 2, file -> {
+
+            if (file.getName().equals("a")) {
+
+                aStarted.countDown();
+                await(bFailed);
+
+            } else {
+
+                await(aStarted);
+                bFailed.countDown();
+
+                throw new DepositException("Could not encrypt file b");
+            }
+        });
+
+        try {
+            service.encrypt(files, registered::add);
+            fail("expected a DepositException");
+        } catch (DepositException e) {
+            // expected
+        }
+
+        assertEquals(1, registered.size());
+        assertEquals(files.get(0), registered.get(0).getOriginalFile());
+        assertEquals("encrypted:a", this.read(files.get(0)));
+    }
+
+    @Test
+    public void unreachableKmsForAnExtraEncryptorLeavesNoBackupBehind() throws Exception {
+
+        List<Path> files = this.files("a", "b");
+        this.mark("a", "b");
+
+        String metadata = this.folder.getRoot().toPath().resolve("flat_encryption.json").toString();
+        AtomicInteger connected = new AtomicInteger();
+        CountDownLatch secondFailed = new CountDownLatch(1);
+
+        EncryptionService service = new EncryptionService(this.encryptionDir().toString(), metadata, "http://vault.invalid", "http://auth.invalid", new ConcurrencyController(2, 2)) {
+
+            @Override
+            protected FileEncryptor createEncryptor() throws DepositException {
+
+                // the first connection works, the one for the second file in flight doesn't
+                if (connected.incrementAndGet() > 1) {
+
+                    secondFailed.countDown();
+                    throw new DepositException("Could not connect to encryption manager");
+                }
+
+                return (keyFile, inputFile, outputFile) -> {
+
+                    await(secondFailed);
+
+                    try {
+                        Files.copy(inputFile.toPath(), outputFile.toPath());
+                        Files.write(keyFile.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        throw new DepositException(e);
+                    }
+                };
+            }
+        };
+
+        List<EncryptedResource> registered = new ArrayList<>();
+
+        try {
+            service.encrypt(files, registered::add);
+            fail("expected a DepositException");
+        } catch (DepositException e) {
+            assertEquals("Could not connect to encryption manager", e.getMessage());
+        }
+
+        // one file was encrypted and registered, the other one was never touched
+        assertEquals(1, registered.size());
+
+        Path untouched = registered.get(0).getOriginalFile().equals(files.get(0)) ? files.get(1) : files.get(0);
+        String name    = untouched.getFileName().toString();
+
+        assertEquals(name, this.read(untouched));
+        assertFalse(Files.exists(this.encryptionDir().resolve(name + ".orig")));
+    }
+
+    @Test
+    public void failedEncryptionLeavesNoBackupBehind() throws Exception {
+
+        List<Path> files = this.files("a", "b");
+        this.mark("a", "b");
+
+        List<EncryptedResource> registered = new ArrayList<>();
+
+        EncryptionService service = this.service(1, 1, file -> {
+            if (file.getName().equals("b")) {
+                throw new DepositException("Could not encrypt file b");
+            }
+        });
+
+        try {
+            service.encrypt(files, registered::add);
+            fail("expected a DepositException");
+        } catch (DepositException e) {
+            assertEquals("Could not encrypt file b", e.getMessage());
+        }
+
+        // a has its rollback, b is untouched and has no orphaned backup or keyset
+        assertEquals(1, registered.size());
+        assertEquals("b", this.read(files.get(1)));
+        assertFalse(Files.exists(this.encryptionDir().resolve("b.orig")));
+        assertFalse(Files.exists(this.encryptionDir().resolve("b.keyset.json")));
+        assertFalse(Files.exists(this.encryptionDir().resolve("b.enc")));
+    }
+
+    @Test
+    public void restoreResourceUndoesTheEncryption() throws Exception {
+
+        Path file = this.files("a").get(0);
+        this.mark("a");
+
+        EncryptedResource resource = this.service(1, 1, f -> { }).encryptResource(file);
+
+        this.service(1, 1, f -> { }).restoreResource(resource);
+
+        assertEquals("a", this.read(file));
+        assertFalse(Files.exists(resource.getBackupFile()));
+        assertFalse(Files.exists(resource.getKeyFile()));
+    }
+
+    @Test
+    public void cleanupRestoresTheBackupsOfArchivedFiles() throws Exception {
+
+        List<Path> files = this.files("a", "b");
+        this.mark("a", "b");
+
+        EncryptionService service = this.service(1, 1, f -> { });
+        service.encrypt(files, resource -> { });
+
+        // the ingest moves the encrypted resources away
+        for (Path file : files) {
+            Files.delete(file);
+        }
+
+        service.cleanup(files);
+
+        assertEquals("a", this.read(files.get(0)));
+        assertEquals("b", this.read(files.get(1)));
+        assertFalse(Files.exists(this.encryptionDir()));
+    }
+
+    @Test
+    public void encryptAsyncFailsTheFutureOnAnError() throws Exception {
+
+        Path file = this.files("a").get(0);
+
+        CompletableFuture<EncryptedResource> future = this.service(1, 1, f -> {
+            throw new NoClassDefFoundError("com/google/crypto/tink/Aead");
+        }).encryptAsync(file);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("expected the future to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NoClassDefFoundError);
+        }
+    }
+
+    @Test
+    public void encryptAsyncFailsTheFutureWhenTheExecutorRejects() throws Exception {
+
+        Path file = this.files("a").get(0);
+        EncryptionService service = this.service(1, 1, f -> { });
+
+        this.executor.shutdown();
+
+        CompletableFuture<EncryptedResource> future = service.encryptAsync(file);
+
+        assertTrue(future.isCompletedExceptionally());
+
+        try {
+            future.join();
+            fail("expected the future to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        assertEquals("a", this.read(file));
+
+        // a rejected file doesn't keep close() waiting
+        service.close();
+    }
+
+    @Test
+    public void cancellingWhileEncryptingRestoresTheFile() throws Exception {
+
+        Path file = this.files("a").get(0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+
+        EncryptionService service = this.service(1, 1, f -> {
+            started.countDown();
+            await(proceed);
+        });
+
+        CompletableFuture<EncryptedResource> future = service.encryptAsync(file);
+
+        await(started);
+        future.cancel(true);
+        proceed.countDown();
+
+        service.close();
+
+        assertEquals("a", this.read(file));
+        assertFalse(Files.exists(this.encryptionDir().resolve("a.orig")));
+        assertFalse(Files.exists(this.encryptionDir().resolve("a.keyset.json")));
+    }
+
+    @Test
+    public void cleanupAsyncRestoresTheBackup() throws Exception {
+
+        Path file = this.files("a").get(0);
+        EncryptionService service = this.service(1, 1, f -> { });
+
+        service.encryptAsync(file).get(10, TimeUnit.SECONDS);
+
+        // the ingest moves the encrypted resource away
+        Files.delete(file);
+
+        service.cleanupAsync(file).get(10, TimeUnit.SECONDS);
+
+        assertEquals("a", this.read(file));
+        assertFalse(Files.exists(this.encryptionDir().resolve("a.keyset.json")));
+    }
+
+    @Test
+    public void closeFinishesQueuedFilesBeforeShuttingDown() throws Exception {
+
+        List<Path> files = this.files("a", "b", "c");
+        CountDownLatch proceed = new CountDownLatch(1);
+
+        // the default executor, owned by the service
+        EncryptionService service = this.service(1, 1, null, f -> await(proceed));
+
+        List<CompletableFuture<EncryptedResource>> futures = new ArrayList<>();
+
+        for (Path file : files) {
+            futures.add(service.encryptAsync(file));
+        }
+
+        Thread closing = new Thread(service::close);
+        closing.start();
+
+        // b and c are still queued behind a
+        closing.join(200);
+        assertTrue(closing.isAlive());
+
+        proceed.countDown();
+        closing.join(10_000);
+        assertFalse(closing.isAlive());
+
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(files.get(i), futures.get(i).get(0, TimeUnit.SECONDS).getOriginalFile());
+        }
+
+        // once closed, new files are rejected
+        try {
+            service.encryptAsync(this.files("d").get(0)).join();
+            fail("expected the future to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void cleanupDoesNotTeachTheControllerThatFilesAreFast() throws Exception {
+
+        List<Path> files = new ArrayList<>();
+
+        for (int i = 0; i < 40; i++) {
+            files.add(this.files("file-" + i).get(0));
+        }
+
+        this.mark(files.stream().map(file -> file.getFileName().toString()).toArray(String[]::new));
+
+        // encrypting a file takes 10 ms, the manual clock moves 100 ms per file in flight, so windows
+        // end after 5 * limit files and throughput only grows with the limit
+        AtomicLong now = new AtomicLong();
+        ConcurrencyController controller = new ConcurrencyController(1, 4, now::get);
+
+        EncryptionService service = this.service(controller, this.executor, f -> {
+
+            now.addAndGet(100 * MS / controller.getLimit());
+
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        service.encrypt(files, resource -> { });
+
+        int limit = controller.getLimit();
+        assertTrue("limit " + limit, limit > 1);
+
+        // the ingest moves the encrypted resources away, renaming the backups back takes next to no time
+        for (Path file : files) {
+            Files.delete(file);
+        }
+
+        service.cleanup(files);
+
+        // if cleanup had fed its renames as latency samples, every encryption would now look inflated
+        service.encrypt(files, resource -> { });
+
+        assertTrue("limit dropped from " + limit + " to " + controller.getLimit(), controller.getLimit() >= limit);
+    }
+
+    /**
+     * Hook run instead of the KMS for every file
+     */
+    private interface Encryption {
+        void encrypt(File inputFile) throws DepositException;
+    }
+
+    private EncryptionService service(int floor, int ceiling, Encryption encryption) throws DepositException {
+        return this.service(floor, ceiling, this.executor, encryption);
+    }
+
+    private EncryptionService service(int floor, int ceiling, Executor executor, Encryption encryption) throws DepositException {
+        return this.service(new ConcurrencyController(floor, ceiling), executor, encryption);
+    }
+
+    private EncryptionService service(ConcurrencyController concurrency, Executor executor, Encryption encryption) throws DepositException {
+
+        String metadata = this.folder.getRoot().toPath().resolve("flat_encryption.json").toString();
+
+        return new EncryptionService(this.encryptionDir().toString(), metadata, "http://vault.invalid", "http://auth.invalid", concurrency, executor) {
+
+            @Override
+            protected FileEncryptor createEncryptor() {
+
+                return (keyFile, inputFile, outputFile) -> {
+
+                    encryption.encrypt(inputFile);
+
+                    try {
+                        Files.write(outputFile.toPath(), ("encrypted:" + new String(Files.readAllBytes(inputFile.toPath()), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+                        Files.write(keyFile.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        throw new DepositException(e);
+                    }
+                };
+            }
+        };
+    }
+
+    private void mark(String... names) throws IOException {
+
+        String[] hashes = new String[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            hashes[i] = DigestUtils.md5Hex(names[i].getBytes(StandardCharsets.UTF_8));
+        }
+
+        FilesMarked marked = new FilesMarked();
+        marked.setMarked(hashes);
+
+        new ObjectMapper().writeValue(this.folder.getRoot().toPath().resolve("flat_encryption.json").toFile(), marked);
+    }
+
+    private List<Path> files(String... names) throws IOException {
+
+        Path resources = this.folder.getRoot().toPath().resolve("resources");
+        Files.createDirectories(resources);
+
+        List<Path> files = new ArrayList<>();
+
+        for (String name : names) {
+            files.add(Files.write(resources.resolve(name), name.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        return files;
+    }
+
+    private Path encryptionDir() {
+        return this.folder.getRoot().toPath().resolve("encryption");
+    }
+
+    private String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static void await(CountDownLatch latch) {
+
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("timed out waiting");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for HashiCorp Vault and the FLAT auth service, used by the load generator.
+ *
+ * Requests to the auth context always hand out the same token. Requests whose path contains
+ * a transit "encrypt" or "decrypt" segment wrap or unwrap the base64 plaintext as
+ * "vault:v1:<plaintext>", mimicking the transit engine without doing any real cryptography.
+ * Every request is delayed by the configured latency plus a random jitter to simulate a remote KMS.
+ *
+ * The transit shapes follow the public Vault transit API. The auth response shape is an assumption
+ * and has not been checked against the client in tla-encryption; if StreamingManager rejects it,
+ * run the generator with --vault and --auth against a real (test) Vault instead.
+ *
+ * @package Doorkeeper
+ */
+public class FakeVaultServer {
+
+    private static final String TOKEN  = "fake-load-test-token";
+    private static final String PREFIX = "vault:v1:";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMs;
+    private final long jitterMs;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * Constructor, binds to a free port on localhost
+     *
+     * @param long latencyMs
+     * @param long jitterMs
+     *
+     * @throws IOException
+     */
+    public FakeVaultServer(long latencyMs, long jitterMs) throws IOException {
+
+        this.latencyMs = latencyMs;
+        this.jitterMs  = jitterMs;
+        this.executor  = Executors.newCachedThreadPool();
+        this.server    = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        this.server.createContext("/auth", this::handleAuth);
+        this.server.createContext("/", this::handleVault);
+        this.server.setExecutor(this.executor);
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    public String getVaultAddress() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    public String getAuthAddress() {
+        return this.getVaultAddress() + "/auth";
+    }
+
+    public long getRequestCount() {
+        return this.requests.get();
+    }
+
+    private void handleAuth(HttpExchange exchange) throws IOException {
+
+        this.delay();
+        this.drain(exchange.getRequestBody());
+
+        ObjectNode response = this.mapper.createObjectNode();
+        response.put("token", TOKEN);
+        response.putObject("auth").put("client_token", TOKEN);
+
+        this.respond(exchange, 200, response);
+    }
+
+    private void handleVault(HttpExchange exchange) throws IOException {
+
+        this.delay();
+
+        String path   = exchange.getRequestURI().getPath();
+        byte[] body   = this.drain(exchange.getRequestBody());
+        JsonNode json = body.length == 0 ? this.mapper.createObjectNode() : this.mapper.readTree(body);
+
+        ObjectNode response = this.mapper.createObjectNode();
+        ObjectNode data     = response.putObject("data");
+
+        if (path.contains("/encrypt/")) {
+
+            data.put("ciphertext", PREFIX + json.path("plaintext").asText());
+
+        } else if (path.contains("/decrypt/")) {
+
+            String ciphertext = json.path("ciphertext").asText();
+            data.put("plaintext", ciphertext.startsWith(PREFIX) ? ciphertext.substring(PREFIX.length()) : ciphertext);
+
+        } else if (!path.contains("/sys/health") && !path.contains("/auth/token/lookup-self")) {
+
+            ObjectNode error = this.mapper.createObjectNode();
+            error.putArray("errors").add("unsupported path " + path);
+
+            this.respond(exchange, 404, error);
+            return;
+        }
+
+        this.respond(exchange, 200, response);
+    }
+
+    private void delay() {
+
+        this.requests.incrementAndGet();
+
+        long sleep = this.latencyMs + (this.jitterMs > 0 ? ThreadLocalRandom.current().nextLong(this.jitterMs + 1) : 0);
+
+        if (sleep <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(sleep);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private byte[] drain(InputStream in) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode json) throws IOException {
+
+        byte[] bytes = this.mapper.writeValueAsString(json).getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the responses of the FakeVaultServer
+ *
+ * @package Doorkeeper
+ */
+public class FakeVaultServerTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private FakeVaultServer server;
+
+    @Before
+    public void start() throws IOException {
+
+        this.server = new FakeVaultServer(0, 0);
+        this.server.start();
+    }
+
+    @After
+    public void stop() {
+        this.server.stop();
+    }
+
+    @Test
+    public void transitEncryptAndDecryptRoundTrip() throws IOException {
+
+        JsonNode encrypted = this.post(this.server.getVaultAddress() + "/v1/transit/encrypt/flat_mpi", "plaintext", "a2V5c2V0");
+        String ciphertext  = encrypted.path("data").path("ciphertext").asText();
+
+        assertTrue(ciphertext.startsWith("vault:v1:"));
+
+        JsonNode decrypted = this.post(this.server.getVaultAddress() + "/v1/transit/decrypt/flat_mpi", "ciphertext", ciphertext);
+
+        assertEquals("a2V5c2V0", decrypted.path("data").path("plaintext").asText());
+    }
+
+    @Test
+    public void authHandsOutAToken() throws IOException {
+
+        JsonNode response = this.post(this.server.getAuthAddress(), "user", "doorkeeper");
+
+        assertFalse(response.path("token").asText().isEmpty());
+        assertEquals(response.path("token").asText(), response.path("auth").path("client_token").asText());
+    }
+
+    @Test
+    public void delaysAndCountsEveryRequest() throws IOException {
+
+        this.server.stop();
+        this.server = new FakeVaultServer(50, 0);
+        this.server.start();
+
+        long start = System.nanoTime();
+
+        this.post(this.server.getAuthAddress(), "user", "doorkeeper");
+        this.post(this.server.getVaultAddress() + "/v1/transit/encrypt/flat_mpi", "plaintext", "a2V5c2V0");
+
+        assertTrue(System.nanoTime() - start >= 100_000_000L);
+        assertEquals(2, this.server.getRequestCount());
+    }
+
+    private JsonNode post(String address, String field, String value) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
+
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(this.mapper.writeValueAsBytes(this.mapper.createObjectNode().put(field, value)));
+        }
+
+        assertEquals(200, connection.getResponseCode());
+
+        try (InputStream in = connection.getInputStream()) {
+            return this.mapper.readTree(in);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption.load;
+
+import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.action.encryption.ConcurrencyController;
+import nl.mpi.tla.flat.deposit.action.encryption.EncryptedResource;
+import nl.mpi.tla.flat.deposit.action.encryption.EncryptionService;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load generator for the EncryptResources / CleanupEncryptResources flow.
+ *
+ * For every deposit a synthetic SIP is generated and run through the same steps as a doorkeeper
+ * deposit: {@link EncryptionService#encrypt(java.util.Collection, EncryptionService.Rollback)}
+ * encrypts the marked files and registers a rollback per file, the encrypted files are removed
+ * (standing in for the ingest moving them into the repository) and
+ * {@link EncryptionService#cleanup(java.util.Collection)} restores the backups. When encrypting
+ * fails, the registered rollbacks are replayed like doorkeeper does and the deposit counts as failed.
+ * Unless --vault and --auth are given, a {@link FakeVaultServer} with injectable latency is
+ * started and used as KMS.
+ *
+ * Run with:
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=nl.mpi.tla.flat.deposit.action.encryption.load.LoadGenerator \
+ *       -Dexec.args="--deposits=20 --files=200 --distribution=lognormal --latency-ms=25"
+ *
+ * @package Doorkeeper
+ */
+public class LoadGenerator {
+
+    private static final String USAGE =
+        "options (all --key=value):\n" +
+        "  --deposits      number of deposits to run (default 10)\n" +
+        "  --files         files per deposit (default 100)\n" +
+        "  --marked        fraction of files marked for encryption (default 1.0)\n" +
+        "  --distribution  fixed, uniform or lognormal (default lognormal)\n" +
+        "  --min-size      smallest file, k/m/g suffixes allowed (default 1k)\n" +
+        "  --median-size   median file size (default 256k)\n" +
+        "  --max-size      largest file (default 64m)\n" +
+        "  --concurrency-min  lowest number of files encrypted at once (default 1)\n" +
+        "  --concurrency-max  highest number of files encrypted at once (default 8)\n" +
+        "  --latency-ms    fake KMS latency per request (default 20)\n" +
+        "  --jitter-ms     random extra fake KMS latency (default 10)\n" +
+        "  --vault         use a real vault address instead of the fake server\n" +
+        "  --auth          use a real auth service address instead of the fake server\n" +
+        "  --work          working folder (default: fresh temporary folder)\n" +
+        "  --seed          random seed (default 42)\n";
+
+    private final Map<String, String> options;
+
+    /**
+     * Constructor
+     *
+     * @param Map<String, String> options as parsed from the command line, without the leading --
+     */
+    public LoadGenerator(Map<String, String> options) {
+
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> options = parse(args);
+
+        if (options.containsKey("help")) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        System.out.print(new LoadGenerator(options).run());
+    }
+
+    /**
+     * Run all deposits
+     *
+     * @return LoadReport
+     * @throws IOException
+     */
+    public LoadReport run() throws IOException {
+
+        int deposits    = Integer.parseInt(this.options.getOrDefault("deposits", "10"));
+        int files       = Integer.parseInt(this.options.getOrDefault("files", "100"));
+        double marked   = Double.parseDouble(this.options.getOrDefault("marked", "1.0"));
+        long minSize    = parseSize(this.options.getOrDefault("min-size", "1k"));
+        long medianSize = parseSize(this.options.getOrDefault("median-size", "256k"));
+        long maxSize    = parseSize(this.options.getOrDefault("max-size", "64m"));
+        int minWorkers  = Integer.parseInt(this.options.getOrDefault("concurrency-min", Integer.toString(EncryptionService.DEFAULT_CONCURRENCY_FLOOR)));
+        int maxWorkers  = Integer.parseInt(this.options.getOrDefault("concurrency-max", Integer.toString(EncryptionService.DEFAULT_CONCURRENCY_CEILING)));
+        long latencyMs  = Long.parseLong(this.options.getOrDefault("latency-ms", "20"));
+        long jitterMs   = Long.parseLong(this.options.getOrDefault("jitter-ms", "10"));
+        Random random   = new Random(Long.parseLong(this.options.getOrDefault("seed", "42")));
+
+        SyntheticDeposit.SizeDistribution distribution = SyntheticDeposit.SizeDistribution.valueOf(this.options.getOrDefault("distribution", "lognormal").toUpperCase(Locale.ROOT));
+
+        Path work = this.options.containsKey("work") ? Paths.get(this.options.get("work")) : Files.createTempDirectory("encryption-load");
+        Files.createDirectories(work);
+
+        FakeVaultServer fake = null;
+        String vault = this.options.get("vault");
+        String auth  = this.options.get("auth");
+
+        if (vault == null || auth == null) {
+
+            fake = new FakeVaultServer(latencyMs, jitterMs);
+            fake.start();
+
+            vault = fake.getVaultAddress();
+            auth  = fake.getAuthAddress();
+        }
+
+        System.out.println("running " + deposits + " deposits of " + files + " files (" + distribution + ") in " + work + " against vault " + vault);
+
+        LoadReport report = new LoadReport();
+        AtomicLong peakDisk = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        final Path sampled = work;
+
+        sampler.scheduleAtFixedRate(() -> peakDisk.accumulateAndGet(diskUsage(sampled), Math::max), 0, 50, TimeUnit.MILLISECONDS);
+
+        try {
+
+            for (int i = 0; i < deposits; i++) {
+
+                SyntheticDeposit deposit = new SyntheticDeposit(work.resolve(String.format("deposit-%05d", i)), files, marked, distribution, minSize, medianSize, maxSize, random);
+                this.runDeposit(deposit, vault, auth, minWorkers, maxWorkers, report);
+                delete(deposit.getRoot());
+            }
+
+            if (!this.options.containsKey("work")) {
+                Files.deleteIfExists(work);
+            }
+
+        } finally {
+
+            sampler.shutdownNow();
+            report.finish(peakDisk.get(), fake == null ? 0 : fake.getRequestCount());
+
+            if (fake != null) {
+                fake.stop();
+            }
+        }
+
+        return report;
+    }
+
+    /**
+     * EncryptionService Factory, one per deposit like the doorkeeper actions
+     *
+     * @param SyntheticDeposit deposit
+     * @param String vault
+     * @param String auth
+     * @param ConcurrencyController concurrency
+     *
+     * @return EncryptionService
+     * @throws DepositException
+     */
+    protected EncryptionService createService(SyntheticDeposit deposit, String vault, String auth, ConcurrencyController concurrency) throws DepositException {
+
+        return new EncryptionService(deposit.getEncryptionDir().toString(), deposit.getMetadataFile().toString(), vault, auth, concurrency);
+    }
+
+    /**
+     * Encrypt, "ingest" and clean up a single deposit, rolling it back when encrypting fails
+     *
+     * @param SyntheticDeposit deposit
+     * @param String vault
+     * @param String auth
+     * @param int minWorkers
+     * @param int maxWorkers
+     * @param LoadReport report
+     *
+     * @return void
+     * @throws IOException
+     */
+    private void runDeposit(SyntheticDeposit deposit, String vault, String auth, int minWorkers, int maxWorkers, LoadReport report) throws IOException {
+
+        long depositStart = System.nanoTime();
+
+        // every action run gets a fresh controller, so do we
+        ConcurrencyController concurrency = new ConcurrencyController(minWorkers, maxWorkers);
+
+        Map<Path, Long> sizes = new HashMap<>();
+
+        for (Path file : deposit.getFiles()) {
+            sizes.put(file, Files.size(file));
+        }
+
+        // rollback events registered by the EncryptResources action, in registration order
+        List<EncryptedResource> registered = new ArrayList<>();
+
+        try (EncryptionService service = this.createService(deposit, vault, auth, concurrency)) {
+
+            try {
+
+                service.encrypt(deposit.getFiles(), registered::add);
+
+            } catch (DepositException | IOException e) {
+
+                rollback(service, registered);
+                throw e;
+            }
+
+            // the ingest moves the encrypted resources away before the cleanup action runs
+            for (EncryptedResource resource : registered) {
+                Files.deleteIfExists(resource.getOriginalFile());
+            }
+
+            service.cleanup(deposit.getFiles());
+
+        } catch (DepositException | IOException e) {
+
+            System.err.println("deposit " + deposit.getRoot() + " failed: " + e);
+            report.recordFailure(System.nanoTime() - depositStart);
+
+            return;
+        }
+
+        for (EncryptedResource resource : registered) {
+            report.recordFile(resource.getEncryptionNanos(), sizes.get(resource.getOriginalFile()));
+        }
+
+        report.recordDeposit(System.nanoTime() - depositStart, concurrency.getLimit());
+    }
+
+    /**
+     * Replay the registered rollback events, newest first, like doorkeeper does for a failed deposit
+     *
+     * @param EncryptionService service
+     * @param List<EncryptedResource> registered
+     *
+     * @return void
+     */
+    private static void rollback(EncryptionService service, List<EncryptedResource> registered) {
+
+        List<EncryptedResource> reversed = new ArrayList<>(registered);
+        Collections.reverse(reversed);
+
+        for (EncryptedResource resource : reversed) {
+
+            try {
+                service.restoreResource(resource);
+            } catch (IOException e) {
+                System.err.println("could not restore " + resource.getOriginalFile() + ": " + e);
+            }
+        }
+    }
+
+    static Map<String, String> parse(String[] args) {
+
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args) {
+
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("unexpected argument " + arg + "\n" + USAGE);
+            }
+
+            int eq = arg.indexOf('=');
+
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+
+        return options;
+    }
+
+    private static long parseSize(String value) {
+
+        String lower = value.trim().toLowerCase(Locale.ROOT);
+        long factor  = 1;
+
+        switch (lower.charAt(lower.length() - 1)) {
+            case 'k': factor = 1024L; break;
+            case 'm': factor = 1024L * 1024; break;
+            case 'g': factor = 1024L * 1024 * 1024; break;
+            default: return Long.parseLong(lower);
+        }
+
+        return Long.parseLong(lower.substring(0, lower.length() - 1)) * factor;
+    }
+
+    private static long diskUsage(Path root) {
+
+        final long[] total = {0};
+
+        try {
+
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    total[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // files come and go while the deposit runs
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+        } catch (IOException e) {
+            // ignore, the next sample will do
+        }
+
+        return total[0];
+    }
+
+    private static void delete(Path root) throws IOException {
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
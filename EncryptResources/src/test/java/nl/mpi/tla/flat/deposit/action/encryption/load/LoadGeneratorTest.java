@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.mpi.tla.flat.deposit.DepositException;
+import nl.mpi.tla.flat.deposit.action.encryption.ConcurrencyController;
+import nl.mpi.tla.flat.deposit.action.encryption.EncryptedResource;
+import nl.mpi.tla.flat.deposit.action.encryption.EncryptionService;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Smoke tests running the load generator against the FakeVaultServer, with a stand-in
+ * encryptor that wraps every keyset through the fake transit engine
+ *
+ * @package Doorkeeper
+ */
+public class LoadGeneratorTest {
+
+    private static final byte[] PREFIX = "encrypted:".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void runsAllDepositsAgainstTheFakeVault() throws Exception {
+
+        LoadReport report = new Generator(this.options(), -1, null).run();
+
+        assertEquals(3, report.getDeposits());
+        assertEquals(0, report.getFailedDeposits());
+        assertEquals(12, report.getFiles());
+        assertEquals(12 * 2048, report.getBytes());
+        assertTrue(report.getDepositsPerMinute() > 0);
+        assertTrue(report.getPeakDiskBytes() >= 0);
+        assertTrue(report.getLastConcurrency() >= 2 && report.getLastConcurrency() <= 3);
+
+        // one transit request per encrypted file
+        assertEquals(12, report.getKmsRequests());
+
+        // deposits are removed after they ran
+        assertEquals(0, this.folder.getRoot().list().length);
+    }
+
+    @Test
+    public void failedDepositsAreRolledBackAndNotCounted() throws Exception {
+
+        List<byte[]> restored = new ArrayList<>();
+
+        // the 7th file overall is the 3rd file of the second deposit
+        LoadReport report = new Generator(this.options(), 7, restored).run();
+
+        assertEquals(2, report.getDeposits());
+        assertEquals(1, report.getFailedDeposits());
+        assertEquals(8, report.getFiles());
+
+        // the files encrypted before the failure, and the one in flight with it, were put back
+        assertTrue(restored.size() >= 2 && restored.size() <= 3);
+
+        for (byte[] content : restored) {
+            assertEquals(2048, content.length);
+            assertFalse(Arrays.equals(PREFIX, Arrays.copyOf(content, PREFIX.length)));
+        }
+    }
+
+    private Map<String, String> options() {
+
+        Map<String, String> options = new HashMap<>();
+        options.put("deposits", "3");
+        options.put("files", "4");
+        options.put("distribution", "fixed");
+        options.put("median-size", "2k");
+        options.put("concurrency-min", "2");
+        options.put("concurrency-max", "3");
+        options.put("latency-ms", "0");
+        options.put("jitter-ms", "0");
+        options.put("work", this.folder.getRoot().toString());
+
+        return options;
+    }
+
+    /**
+     * Load generator whose services encrypt through the fake transit engine, optionally failing the nth file
+     */
+    private static class Generator extends LoadGenerator {
+
+        private final AtomicInteger encrypted = new AtomicInteger();
+        private final int failAt;
+        private final List<byte[]> restored;
+
+        Generator(Map<String, String> options, int failAt, List<byte[]> restored) {
+
+            super(options);
+
+            this.failAt   = failAt;
+            this.restored = restored;
+        }
+
+        @Override
+        protected EncryptionService createService(SyntheticDeposit deposit, String vault, String auth, ConcurrencyController concurrency) throws DepositException {
+
+            return new EncryptionService(deposit.getEncryptionDir().toString(), deposit.getMetadataFile().toString(), vault, auth, concurrency) {
+
+                @Override
+                protected FileEncryptor createEncryptor() {
+
+                    return (keyFile, inputFile, outputFile) -> {
+
+                        if (encrypted.incrementAndGet() == failAt) {
+                            throw new DepositException("Could not encrypt file " + inputFile.getName());
+                        }
+
+                        try {
+
+                            String ciphertext = wrap(vault, Base64.getEncoder().encodeToString(inputFile.getName().getBytes(StandardCharsets.UTF_8)));
+                            Files.write(keyFile.toPath(), ciphertext.getBytes(StandardCharsets.UTF_8));
+
+                            try (OutputStream out = Files.newOutputStream(outputFile.toPath())) {
+                                out.write(PREFIX);
+                                Files.copy(inputFile.toPath(), out);
+                            }
+
+                        } catch (IOException e) {
+                            throw new DepositException(e);
+                        }
+                    };
+                }
+
+                @Override
+                public void restoreResource(EncryptedResource resource) throws IOException {
+
+                    super.restoreResource(resource);
+                    restored.add(Files.readAllBytes(resource.getOriginalFile()));
+                }
+            };
+        }
+    }
+
+    private static String wrap(String vault, String plaintext) throws IOException {
+
+        ObjectMapper mapper = new ObjectMapper();
+        HttpURLConnection connection = (HttpURLConnection) new URL(vault + "/v1/transit/encrypt/flat_mpi").openConnection();
+
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(mapper.writeValueAsBytes(mapper.createObjectNode().put("plaintext", plaintext)));
+        }
+
+        try (InputStream in = connection.getInputStream()) {
+
+            JsonNode response = mapper.readTree(in);
+            return response.path("data").path("ciphertext").asText();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Aggregated results of a load generator run
+ *
+ * @package Doorkeeper
+ */
+public class LoadReport {
+
+    private final List<Long> fileLatenciesNanos = new ArrayList<>();
+    private int deposits;
+    private int failedDeposits;
+    private int lastConcurrency;
+    private long bytes;
+    private long wallNanos;
+    private long peakDiskBytes;
+    private long kmsRequests;
+
+    public synchronized void recordFile(long latencyNanos, long size) {
+        this.fileLatenciesNanos.add(latencyNanos);
+        this.bytes += size;
+    }
+
+    /**
+     * Record a deposit that was encrypted, ingested and cleaned up; only the encryption
+     * and cleanup time counts, not generating the SIP
+     *
+     * @param long nanos
+     * @param int concurrency limit the concurrency controller ended at
+     */
+    public synchronized void recordDeposit(long nanos, int concurrency) {
+        this.deposits++;
+        this.wallNanos      += nanos;
+        this.lastConcurrency = concurrency;
+    }
+
+    /**
+     * Record a deposit that failed and was rolled back; its time is spent,
+     * but it doesn't count as a deposit
+     *
+     * @param long nanos
+     */
+    public synchronized void recordFailure(long nanos) {
+        this.failedDeposits++;
+        this.wallNanos += nanos;
+    }
+
+    public synchronized void finish(long peakDiskBytes, long kmsRequests) {
+        this.peakDiskBytes = peakDiskBytes;
+        this.kmsRequests   = kmsRequests;
+    }
+
+    public synchronized int getDeposits() {
+        return this.deposits;
+    }
+
+    public synchronized int getFailedDeposits() {
+        return this.failedDeposits;
+    }
+
+    public synchronized int getFiles() {
+        return this.fileLatenciesNanos.size();
+    }
+
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    public synchronized long getPeakDiskBytes() {
+        return this.peakDiskBytes;
+    }
+
+    public synchronized int getLastConcurrency() {
+        return this.lastConcurrency;
+    }
+
+    public synchronized long getKmsRequests() {
+        return this.kmsRequests;
+    }
+
+    public synchronized double getDepositsPerMinute() {
+        return this.wallNanos == 0 ? 0 : this.deposits / (this.wallNanos / 60e9);
+    }
+
+    public synchronized double getMegabytesPerSecond() {
+        return this.wallNanos == 0 ? 0 : (this.bytes / 1e6) / (this.wallNanos / 1e9);
+    }
+
+    /**
+     * Per-file latency percentile in milliseconds (nearest-rank)
+     *
+     * @param double percentile between 0 and 100
+     *
+     * @return double
+     */
+    public synchronized double getFileLatencyMillis(double percentile) {
+
+        if (this.fileLatenciesNanos.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> sorted = new ArrayList<>(this.fileLatenciesNanos);
+        Collections.sort(sorted);
+
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1))) / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+
+        return String.format(Locale.ROOT,
+            "deposits          : %d (failed: %d)%n" +
+            "files encrypted   : %d%n" +
+            "bytes encrypted   : %.2f MB%n" +
+            "processing time   : %.2f s%n" +
+            "deposits/min      : %.2f%n" +
+            "throughput        : %.2f MB/s%n" +
+            "file latency p50  : %.2f ms%n" +
+            "file latency p99  : %.2f ms%n" +
+            "peak disk usage   : %.2f MB%n" +
+            "final concurrency : %d%n" +
+            "kms/auth requests : %d%n",
+            this.deposits, this.failedDeposits,
+            this.fileLatenciesNanos.size(),
+            this.bytes / 1e6,
+            this.wallNanos / 1e9,
+            this.getDepositsPerMinute(),
+            this.getMegabytesPerSecond(),
+            this.getFileLatencyMillis(50),
+            this.getFileLatencyMillis(99),
+            this.peakDiskBytes / 1e6,
+            this.lastConcurrency,
+            this.kmsRequests);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2021 The Language Archive
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.mpi.tla.flat.deposit.action.encryption.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import nl.mpi.tla.flat.deposit.action.encryption.FilesMarked;
+
+/**
+ * Synthetic SIP on disk: a resources folder filled with random files and a matching
+ * flat_encryption.json listing the MD5 of the names of the files marked for encryption.
+ *
+ * @package Doorkeeper
+ */
+public class SyntheticDeposit {
+
+    /**
+     * Distribution of generated file sizes
+     */
+    public enum SizeDistribution {
+
+        /**
+         * every file is exactly the median size
+         */
+        FIXED,
+
+        /**
+         * sizes uniformly spread between min and max
+         */
+        UNIFORM,
+
+        /**
+         * log-normal sizes around the median, clamped to min and max; many small files and a long tail of big ones
+         */
+        LOGNORMAL;
+
+        public long sample(Random random, long min, long median, long max) {
+
+            switch (this) {
+
+                case FIXED:
+                    return median;
+
+                case UNIFORM:
+                    return min + (long) (random.nextDouble() * (max - min));
+
+                default:
+                    double size = Math.exp(Math.log(Math.max(1, median)) + random.nextGaussian() * 1.5);
+                    return Math.max(min, Math.min(max, (long) size));
+            }
+        }
+    }
+
+    private final Path root;
+    private final Path resourcesDir;
+    private final Path encryptionDir;
+    private final Path metadataFile;
+    private final List<Path> files  = new ArrayList<>();
+    private final List<Path> marked = new ArrayList<>();
+    private long markedBytes;
+
+    /**
+     * Generate a deposit inside the given root folder
+     *
+     * @param Path root
+     * @param int fileCount
+     * @param double markedRatio
+     * @param SizeDistribution distribution
+     * @param long minSize
+     * @param long medianSize
+     * @param long maxSize
+     * @param Random random
+     *
+     * @throws IOException
+     */
+    public SyntheticDeposit(Path root, int fileCount, double markedRatio, SizeDistribution distribution, long minSize, long medianSize, long maxSize, Random random) throws IOException {
+
+        this.root          = root;
+        this.resourcesDir  = root.resolve("resources");
+        this.encryptionDir = root.resolve("encryption");
+        this.metadataFile  = root.resolve("metadata").resolve("flat_encryption.json");
+
+        Files.createDirectories(this.resourcesDir);
+        Files.createDirectories(this.metadataFile.getParent());
+
+        List<String> hashes = new ArrayList<>();
+        byte[] buffer = new byte[64 * 1024];
+
+        for (int i = 0; i < fileCount; i++) {
+
+            Path file = this.resourcesDir.resolve(String.format("resource-%05d.bin", i));
+            long size = distribution.sample(random, minSize, medianSize, maxSize);
+
+            try (OutputStream out = Files.newOutputStream(file)) {
+
+                long remaining = size;
+
+                while (remaining > 0) {
+
+                    random.nextBytes(buffer);
+
+                    int chunk = (int) Math.min(buffer.length, remaining);
+                    out.write(buffer, 0, chunk);
+                    remaining -= chunk;
+                }
+            }
+
+            this.files.add(file);
+
+            if (random.nextDouble() < markedRatio) {
+
+                this.marked.add(file);
+                this.markedBytes += size;
+                hashes.add(DigestUtils.md5Hex(file.getFileName().toString().getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        FilesMarked filesMarked = new FilesMarked();
+        filesMarked.setMarked(hashes.toArray(new String[0]));
+
+        new ObjectMapper().writeValue(this.metadataFile.toFile(), filesMarked);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public Path getEncryptionDir() {
+        return encryptionDir;
+    }
+
+    public Path getMetadataFile() {
+        return metadataFile;
+    }
+
+    public List<Path> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    public List<Path> getMarked() {
+        return Collections.unmodifiableList(marked);
+    }
+
+    public long getMarkedBytes() {
+        return markedBytes;
+    }
+}